@@ -0,0 +1,200 @@
+package robaho.queue;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * End-to-end latency harness. Producers put timestamped messages into the queue at a fixed offered rate, and the consumer
+ * records the put-to-take latency of every message in an HdrHistogram. The results are written as CSV, one line per
+ * queue type, wait strategy, consumer thread type and rate.
+ * <p>
+ * Each message carries the time it was scheduled to be sent, not the time it was actually sent, so that if a producer
+ * falls behind (because the queue or the consumer stalls it), the delay is included in the latency of every message that
+ * should have been sent during the stall. This corrects for coordinated omission.
+ * <p>
+ * Options (all optional):
+ * <pre>
+ * --rates=100000,1000000,5000000        offered rates in messages per second
+ * --queues=SingleConsumerQueue,ClosableQueue
+ * --waits=take,poll,drain               consumer wait strategy
+ * --threads=virtual,platform            consumer thread type
+ * --producers=1                         number of producer (platform) threads sharing the offered rate
+ * --warmup=2                            seconds per run excluded from the results
+ * --duration=5                          seconds per run included in the results
+ * --output=results.csv                  defaults to stdout
+ * </pre>
+ */
+public class LatencyHarness {
+    private record Message(long intendedNanos) {}
+
+    private static final Map<String,Supplier<AbstractClosableQueue<Message>>> QUEUES = Map.of(
+        "SingleConsumerQueue", SingleConsumerQueue::new,
+        "ClosableQueue", ClosableQueue::new);
+
+    private static final String HEADER = "queue,wait,consumer,rate,producers,count,achieved_rate,mean_ns,p50_ns,p99_ns,p999_ns,max_ns";
+
+    public static void main(String[] args) throws Exception {
+        Map<String,String> options = new HashMap<>();
+        for(var arg : args) {
+            if(arg.isBlank()) continue;
+            int i = arg.indexOf('=');
+            if(!arg.startsWith("--") || i<0) throw new IllegalArgumentException("invalid option "+arg+", expected --name=value");
+            options.put(arg.substring(2,i),arg.substring(i+1));
+        }
+        var rates = options.getOrDefault("rates","100000,1000000,5000000").split(",");
+        var queues = options.getOrDefault("queues","SingleConsumerQueue,ClosableQueue").split(",");
+        var waits = options.getOrDefault("waits","take,poll,drain").split(",");
+        var threads = options.getOrDefault("threads","virtual,platform").split(",");
+        int producers = Integer.parseInt(options.getOrDefault("producers","1"));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup","2")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration","5")));
+        var output = options.get("output");
+
+        PrintStream out = output==null ? System.out : new PrintStream(new FileOutputStream(output),true);
+        try {
+            out.println(HEADER);
+            for(var queue : queues) {
+                var factory = QUEUES.get(queue);
+                if(factory==null) throw new IllegalArgumentException("unknown queue "+queue+", expected one of "+QUEUES.keySet());
+                for(var wait : waits) {
+                    for(var thread : threads) {
+                        for(var rate : rates) {
+                            var run = new Run(factory.get(),wait,thread,Long.parseLong(rate),producers,warmup,duration);
+                            var histogram = run.execute();
+                            long elapsed = run.lastTake-run.measureStart;
+                            out.println(String.join(",",queue,wait,thread,rate,String.valueOf(producers),
+                                String.valueOf(histogram.getTotalCount()),
+                                String.valueOf(elapsed<=0 ? 0 : histogram.getTotalCount()*TimeUnit.SECONDS.toNanos(1)/elapsed),
+                                String.valueOf((long)histogram.getMean()),
+                                String.valueOf(histogram.getValueAtPercentile(50.0)),
+                                String.valueOf(histogram.getValueAtPercentile(99.0)),
+                                String.valueOf(histogram.getValueAtPercentile(99.9)),
+                                String.valueOf(histogram.getMaxValue())));
+                            if(output!=null) System.err.println("completed "+queue+" "+wait+" "+thread+" "+rate);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if(out!=System.out) out.close();
+        }
+    }
+
+    private static class Run {
+        private final AbstractClosableQueue<Message> queue;
+        private final String wait;
+        private final String thread;
+        private final long rate;
+        private final int producers;
+        private final long warmup;
+        private final long duration;
+        /** the histogram and lastTake are only accessed by the consumer thread until it is joined */
+        private final Histogram histogram = new Histogram(3);
+        private long measureStart;
+        /** the time the last measured message was taken, so a consumer that falls behind lowers the achieved rate */
+        private long lastTake;
+
+        Run(AbstractClosableQueue<Message> queue, String wait, String thread, long rate, int producers, long warmup, long duration) {
+            this.queue=queue;
+            this.wait=wait;
+            this.thread=thread;
+            this.rate=rate;
+            this.producers=producers;
+            this.warmup=warmup;
+            this.duration=duration;
+        }
+
+        Histogram execute() throws InterruptedException {
+            Runnable consumer = switch(wait) {
+                case "take" -> this::consumeUsingTake;
+                case "poll" -> this::consumeUsingPoll;
+                case "drain" -> this::consumeUsingDrain;
+                default -> throw new IllegalArgumentException("unknown wait strategy "+wait+", expected take, poll or drain");
+            };
+            var builder = switch(thread) {
+                case "virtual" -> Thread.ofVirtual();
+                case "platform" -> Thread.ofPlatform();
+                default -> throw new IllegalArgumentException("unknown thread type "+thread+", expected virtual or platform");
+            };
+            long start = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(100);
+            measureStart = start+warmup;
+            long end = measureStart+duration;
+            Thread consumerThread = builder.start(consumer);
+
+            // each producer sends every producers'th message of a single schedule at the offered rate
+            double interval = (double)TimeUnit.SECONDS.toNanos(1)/rate;
+            List<Thread> producerThreads = new ArrayList<>();
+            for(int p=0;p<producers;p++) {
+                int offset = p;
+                producerThreads.add(Thread.ofPlatform().start(() -> produce(start,end,interval,offset)));
+            }
+            for(var t : producerThreads) t.join();
+            queue.close();
+            consumerThread.join();
+            return histogram;
+        }
+
+        private void produce(long start, long end, double interval, int offset) {
+            for(long i=offset;;i+=producers) {
+                long intended = start+(long)(i*interval);
+                if(intended>=end) return;
+                while(System.nanoTime()<intended) Thread.onSpinWait();
+                queue.put(new Message(intended));
+            }
+        }
+
+        private void record(Message m) {
+            long now = System.nanoTime();
+            if(m.intendedNanos()>=measureStart) {
+                histogram.recordValue(now-m.intendedNanos());
+                lastTake = now;
+            }
+        }
+
+        private void consumeUsingTake() {
+            try {
+                while(true) {
+                    record(queue.take());
+                }
+            } catch (InterruptedException ex) {
+                throw new Error("unexpected interrupt");
+            } catch (QueueClosedException expected) {
+            }
+        }
+
+        private void consumeUsingPoll() {
+            try {
+                while(true) {
+                    var m = queue.poll();
+                    if(m==null) {
+                        Thread.onSpinWait();
+                    } else {
+                        record(m);
+                    }
+                }
+            } catch (QueueClosedException expected) {
+            }
+        }
+
+        private void consumeUsingDrain() {
+            ArrayList<Message> messages = new ArrayList<>();
+            try {
+                while(queue.drainToBlocking(messages)>0) {
+                    for(var m : messages) record(m);
+                    messages.clear();
+                }
+            } catch (InterruptedException ex) {
+                throw new Error("unexpected interrupt");
+            } catch (QueueClosedException expected) {
+            }
+        }
+    }
+}
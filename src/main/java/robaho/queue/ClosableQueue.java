@@ -156,7 +156,7 @@ public class ClosableQueue<T> extends AbstractClosableQueue<T> {
                 n++;
                 count.decrementAndGet();
             }
-            if(head==CLOSED && n==0) throw new QueueClosedException();
+            if(head.next==CLOSED && n==0) throw new QueueClosedException();
             return n;
         } finally {
             takeLock.unlock();
@@ -180,7 +180,7 @@ public class ClosableQueue<T> extends AbstractClosableQueue<T> {
                 n++;
                 count.decrementAndGet();
             }
-            if(head==CLOSED && n==0) throw new QueueClosedException();
+            if(head.next==CLOSED && n==0) throw new QueueClosedException();
             return n;
         } finally {
             takeLock.unlock();
@@ -0,0 +1,182 @@
+package robaho.queue;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A closable queue that routes each element by key to one of N {@link SingleConsumerQueue} partitions, each drained by its
+ * own virtual thread. All elements with the same key are delivered to the consumer in put() order, while elements with
+ * different keys may be processed in parallel.
+ * <p>
+ * The consumer is called concurrently from different partitions, so it must be thread-safe. If the consumer throws, the
+ * exception (including an Error other than a VirtualMachineError) is passed to the partition thread's uncaught exception
+ * handler and the partition continues with the next element. If a partition thread terminates unexpectedly, its partition is
+ * closed, so further put() operations for keys mapped to it fail with a QueueClosedException. The interrupt status of the
+ * partition thread is cleared after each element.
+ */
+public class PartitionedClosableQueue<K,T> implements AutoCloseable {
+    private static class Partition<T> {
+        final SingleConsumerQueue<T> queue = new SingleConsumerQueue<>();
+        /** number of elements put but not yet processed by the consumer */
+        final AtomicInteger depth = new AtomicInteger();
+        Thread thread;
+    }
+    private final Partition<T>[] partitions;
+    private final boolean consistentHash;
+
+    /**
+     * Create a queue with the specified number of partitions using modulo hashing of the key.
+     * @param partitions is the number of partitions, each with its own consumer thread.
+     * @param consumer is called for every element, from the thread of the partition the element's key is mapped to.
+     */
+    public PartitionedClosableQueue(int partitions, Consumer<? super T> consumer) {
+        this(partitions,false,consumer);
+    }
+    /**
+     * Create a queue with the specified number of partitions.
+     * @param partitions is the number of partitions, each with its own consumer thread.
+     * @param consistentHash if true, keys are mapped using a jump consistent hash, so that changing the number of partitions
+     * between runs only moves the minimum number of keys to a different partition.
+     * @param consumer is called for every element, from the thread of the partition the element's key is mapped to.
+     */
+    public PartitionedClosableQueue(int partitions, boolean consistentHash, Consumer<? super T> consumer) {
+        if(partitions<=0) throw new IllegalArgumentException("partitions must be > 0");
+        Objects.requireNonNull(consumer);
+        this.consistentHash=consistentHash;
+        this.partitions = new Partition[partitions];
+        for(int i=0;i<partitions;i++) {
+            this.partitions[i] = new Partition<>();
+        }
+        for(var p : this.partitions) {
+            p.thread = Thread.startVirtualThread(() -> drain(p,consumer));
+        }
+    }
+
+    private static <T> void drain(Partition<T> p, Consumer<? super T> consumer) {
+        ArrayList<T> elements = new ArrayList<>();
+        try {
+            while(p.queue.drainToBlocking(elements)>0) {
+                for(var e : elements) {
+                    try {
+                        consumer.accept(e);
+                    } catch(VirtualMachineError ex) {
+                        throw ex;
+                    } catch(Throwable ex) {
+                        Thread t = Thread.currentThread();
+                        t.getUncaughtExceptionHandler().uncaughtException(t,ex);
+                    } finally {
+                        p.depth.decrementAndGet();
+                        // a consumer that restores the interrupt status would otherwise cause take() to spin
+                        Thread.interrupted();
+                    }
+                }
+                elements.clear();
+            }
+        } catch (InterruptedException ex) {
+            // declared by drainToBlocking, but never thrown by SingleConsumerQueue
+        } catch (QueueClosedException expected) {
+        } finally {
+            // the elements can no longer be processed, so fail any further put()
+            p.queue.close();
+        }
+    }
+
+    /**
+     * Add an element to the partition the key is mapped to.
+     * @throws NullPointerException if the element is null.
+     * @throws QueueClosedException if the queue is closed.
+     */
+    public void put(K key, T e) {
+        Objects.requireNonNull(e);
+        var p = partitions[partitionOf(key)];
+        p.depth.incrementAndGet();
+        try {
+            p.queue.put(e);
+        } catch(QueueClosedException ex) {
+            p.depth.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the partition that elements with the key are routed to. The mapping is stable for the life of the queue.
+     * @param key the key, which may be null.
+     * @return the partition in the range [0,partitions())
+     */
+    public int partitionOf(K key) {
+        int h = Objects.hashCode(key);
+        if(consistentHash) {
+            return jumpConsistentHash(h * 0x9E3779B97F4A7C15L,partitions.length);
+        }
+        return Math.floorMod(h ^ (h >>> 16),partitions.length);
+    }
+
+    /**
+     * Jump consistent hash, see Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm".
+     */
+    private static int jumpConsistentHash(long key, int buckets) {
+        long b = -1, j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    /**
+     * @return the number of partitions.
+     */
+    public int partitions() {
+        return partitions.length;
+    }
+
+    /**
+     * Returns the number of elements added to the partition that have not yet been processed by the consumer, including
+     * the elements currently being processed.
+     * @param partition the partition in the range [0,partitions())
+     */
+    public int depth(int partition) {
+        return partitions[partition].depth.get();
+    }
+
+    /**
+     * Returns a snapshot of the depth of every partition.
+     * @see #depth(int)
+     */
+    public int[] depths() {
+        int[] depths = new int[partitions.length];
+        for(int i=0;i<partitions.length;i++) {
+            depths[i] = partitions[i].depth.get();
+        }
+        return depths;
+    }
+
+    /**
+     * Close all partitions and wait for the partition threads to process all of the elements added prior to close. Any
+     * further put() operations will fail with a QueueClosedException. If interrupted while waiting, this method continues
+     * to wait and then re-asserts the interrupt status. Closing an already closed queue waits for the partition threads
+     * to finish.
+     */
+    @Override
+    public void close() {
+        for(var p : partitions) {
+            p.queue.close();
+        }
+        boolean interrupted = false;
+        for(var p : partitions) {
+            if(p.thread==Thread.currentThread()) continue;
+            while(true) {
+                try {
+                    p.thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -3,6 +3,8 @@ package robaho.queue;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
 /**
@@ -17,15 +19,42 @@ public class SingleConsumerQueue<T> extends AbstractClosableQueue<T>{
             this.element=element;
         }
     }
+    /** a node added by transfer(), the producer waits until the state is no longer WAITING */
+    private static final class TransferNode<T> extends Node<T> {
+        static final int WAITING = 0;
+        static final int TAKEN = 1;
+        static final int CANCELLED = 2;
+        final Thread producer = Thread.currentThread();
+        volatile int state = WAITING;
+        TransferNode(T element) {
+            super(element);
+        }
+        /** called by the consumer, returns false if the transfer was cancelled */
+        boolean take() {
+            if(STATE.compareAndSet(this,WAITING,TAKEN)) {
+                LockSupport.unpark(producer);
+                return true;
+            }
+            return false;
+        }
+        /** returns false if the element was already taken */
+        boolean cancel() {
+            return STATE.compareAndSet(this,WAITING,CANCELLED);
+        }
+    }
     private volatile Node<T> tail = new Node(null);
     private Node<T> head = tail;
 
-    private static final int SPIN_WAITS       = 1 <<  7;   // max calls to onSpinWait
+    private static final int SPIN_WAITS       = 1 <<  7;   // max spins (onSpinWait or yield) before parking
+    private static final int TAKE_SPINS = Runtime.getRuntime().availableProcessors()>1 ? SPIN_WAITS : 0;   // spinning on a uniprocessor only delays the producer
     private static final Node CLOSED = new Node(null);
 
     @Override
     public void put(T e) {
-        Node node = new Node(e);
+        append(new Node(e));
+    }
+
+    private void append(Node node) {
         while(true) {
             Node _tail = tail;
             if(_tail==CLOSED) throw new QueueClosedException();
@@ -39,6 +68,57 @@ public class SingleConsumerQueue<T> extends AbstractClosableQueue<T>{
         }
     }
 
+    /**
+     * Add an element to the queue, blocking until it has been removed by the consumer.
+     * @throws QueueClosedException if the queue is closed before the element is removed.
+     * @throws InterruptedException if the thread is interrupted before the element is removed, in which case the element
+     * will not be seen by the consumer.
+     */
+    public void transfer(T e) throws InterruptedException {
+        awaitTransfer(e,false,0);
+    }
+
+    /**
+     * Add an element to the queue, blocking until it has been removed by the consumer or the timeout elapses. If the
+     * timeout elapses the element will not be seen by the consumer.
+     * @return true if the element was removed by the consumer, false if the timeout elapsed.
+     * @throws QueueClosedException if the queue is closed before the element is removed.
+     * @throws InterruptedException if the thread is interrupted before the element is removed, in which case the element
+     * will not be seen by the consumer.
+     */
+    public boolean tryTransfer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitTransfer(e,true,unit.toNanos(timeout));
+    }
+
+    private boolean awaitTransfer(T e, boolean timed, long nanos) throws InterruptedException {
+        var node = new TransferNode<T>(Objects.requireNonNull(e));
+        long deadline = timed ? System.nanoTime()+nanos : 0;
+        append(node);
+        int waits=0;
+        while(node.state==TransferNode.WAITING) {
+            if(Thread.interrupted()) {
+                if(node.cancel()) throw new InterruptedException();
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long remaining = timed ? deadline-System.nanoTime() : 0;
+            if(timed && remaining<=0) {
+                if(node.cancel()) return false;
+                break;
+            }
+            if(++waits<SPIN_WAITS) {
+                // yield rather than spin, so a consumer sharing the carrier or cpu can take the element
+                Thread.yield();
+            } else if(timed) {
+                LockSupport.parkNanos(this,remaining);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        if(node.state==TransferNode.CANCELLED) throw new QueueClosedException();
+        return true;
+    }
+
     @Override
     public void putAll(Collection<? extends T> c) {
         for(var e : c) {
@@ -55,8 +135,9 @@ public class SingleConsumerQueue<T> extends AbstractClosableQueue<T>{
                 if(head.element!=null) {
                     T element = head.element;
                     head.element = null;
+                    boolean taken = !(head instanceof TransferNode tn) || tn.take();
                     if(head.next!=null) head = head.next;
-                    return element;
+                    if(taken) return element;
                 } else if(head.next!=null) {
                     head = head.next;
                 } else {
@@ -80,7 +161,7 @@ public class SingleConsumerQueue<T> extends AbstractClosableQueue<T>{
             var _head = head;
             for (;;) {
                 if(_head==CLOSED) throw new QueueClosedException();
-                if(_head.element!=null) return head.element;
+                if(_head.element!=null && !(_head instanceof TransferNode tn && tn.state==TransferNode.CANCELLED)) return _head.element;
                 if(_head.next!=null) {
                     _head = _head.next;
                 } else {
@@ -116,18 +197,36 @@ public class SingleConsumerQueue<T> extends AbstractClosableQueue<T>{
             if(TAIL.compareAndSet(this,_tail,CLOSED)) {
                 _tail.next=CLOSED;
                 LockSupport.unpark(waiter);
+                cancelTransfers();
                 return;
             }
         }
     }
+    /**
+     * Fail any pending transfers. Consumed nodes remain linked, so starting from a stale head only visits more nodes.
+     */
+    private void cancelTransfers() {
+        Node node = head;
+        while(node!=CLOSED) {
+            if(node instanceof TransferNode tn && tn.cancel()) LockSupport.unpark(tn.producer);
+            Node next;
+            // an append that won the tail CAS before close may not have linked its node yet
+            while((next=node.next)==null) Thread.onSpinWait();
+            node = next;
+        }
+    }
     @Override
     public int drainToBlocking(Collection<? super T> c) throws InterruptedException {
         var e = take();
         c.add(e);
         int count=1;
-        while((e=poll())!=null) {
-            c.add(e);
-            count++;
+        try {
+            while((e=poll())!=null) {
+                c.add(e);
+                count++;
+            }
+        } catch(QueueClosedException ex) {
+            // the elements already drained must be returned, the next call will throw
         }
         return count;
     }
@@ -141,14 +240,16 @@ public class SingleConsumerQueue<T> extends AbstractClosableQueue<T>{
                 if(head.element!=null) {
                     T element = head.element;
                     head.element = null;
+                    boolean taken = !(head instanceof TransferNode tn) || tn.take();
                     if(head.next!=null) head = head.next;
-                    return element;
+                    if(taken) return element;
+                    continue;
                 }
                 if(head.next!=null) {
                     head = head.next;
                     continue;
                 }
-                if(++waits<SPIN_WAITS) {
+                if(++waits<TAKE_SPINS) {
                     Thread.onSpinWait();
                     continue;
                 }
@@ -163,11 +264,13 @@ public class SingleConsumerQueue<T> extends AbstractClosableQueue<T>{
     // VarHandle mechanics
     private static final VarHandle TAIL;
     private static final VarHandle WAITER;
+    private static final VarHandle STATE;
     static {
         try {
             MethodHandles.Lookup l = MethodHandles.lookup();
             TAIL = l.findVarHandle(SingleConsumerQueue.class, "tail",Node.class);
             WAITER = l.findVarHandle(SingleConsumerQueue.class, "waiter", Thread.class);
+            STATE = l.findVarHandle(TransferNode.class, "state", int.class);
         } catch (ReflectiveOperationException e) {
             throw new ExceptionInInitializerError(e);
         }
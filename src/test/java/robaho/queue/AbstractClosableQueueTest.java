@@ -95,6 +95,22 @@ abstract class AbstractClosableQueueTest {
         assertEquals(2,list.get(1));
         assertEquals(3,list.get(2));
     }
+    @Test void drainBlockingReturnsElementsOnClosedQueue() throws InterruptedException {
+        var queue = createQueue();
+        ArrayList<Integer> list = new ArrayList();
+        queue.put(1);
+        queue.put(2);
+        queue.put(3);
+        queue.close();
+        assertEquals(3,queue.drainToBlocking(list));
+        assertEquals(3,list.size());
+        assertThrows(QueueClosedException.class,() -> queue.drainToBlocking(list));
+    }
+    @Test void drainThrowsOnClosedEmptyQueue() throws InterruptedException {
+        var queue = createQueue();
+        queue.close();
+        assertThrows(QueueClosedException.class,() -> queue.drainTo(new ArrayList<Integer>()));
+    }
     @Test void drainQueueMaxElements() throws InterruptedException {
         var queue = createQueue();
         ArrayList<Integer> list = new ArrayList();
@@ -55,6 +55,28 @@ public class ClosableQueueBenchmark {
         thread.join();
     }
 
+    @Benchmark
+    @OperationsPerInvocation(1000000)
+    public void testSingleConsumerQueueUsingTransfer() throws InterruptedException {
+        var queue = new SingleConsumerQueue<Integer>();
+        var thread = Thread.startVirtualThread(() -> {
+                try {
+                    while(true) {
+                        queue.take();
+                    }
+                } catch (InterruptedException ex) {
+                    throw new Error("unexpected interrupt");
+                } catch (QueueClosedException expected) {
+                }
+            }); 
+            
+        for(int i=0;i<1000000;i++) {
+            queue.transfer(i);
+        }
+        queue.close();
+        thread.join();
+    }
+
     @Benchmark
     @OperationsPerInvocation(1000000)
     public void testLinkedBlockingQueue() throws InterruptedException {
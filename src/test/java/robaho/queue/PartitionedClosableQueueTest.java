@@ -0,0 +1,112 @@
+package robaho.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionedClosableQueueTest {
+    record Event(int key, int seq) {}
+
+    @Test void ensurePerKeyOrderIsPreserved() {
+        var received = new ConcurrentHashMap<Integer,List<Integer>>();
+        try(var queue = new PartitionedClosableQueue<Integer,Event>(4, e -> received.computeIfAbsent(e.key(), k -> new ArrayList<>()).add(e.seq()))) {
+            for(int seq=0;seq<10000;seq++) {
+                for(int key=0;key<16;key++) {
+                    queue.put(key,new Event(key,seq));
+                }
+            }
+        }
+        assertEquals(16,received.size());
+        for(var seqs : received.values()) {
+            assertEquals(10000,seqs.size());
+            for(int i=0;i<seqs.size();i++) {
+                assertEquals(i,seqs.get(i));
+            }
+        }
+    }
+    @Test void ensurePutAfterCloseThrows() {
+        var queue = new PartitionedClosableQueue<Integer,Integer>(2, e -> {});
+        queue.close();
+        assertThrows(QueueClosedException.class,() -> queue.put(1,1));
+        assertArrayEquals(new int[]{0,0},queue.depths());
+    }
+    @Test void ensureDepthTracksUnprocessedElements() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        var processed = new AtomicInteger();
+        try(var queue = new PartitionedClosableQueue<Integer,Integer>(2, e -> {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+            processed.incrementAndGet();
+        })) {
+            try {
+                int partition = queue.partitionOf(1);
+                queue.put(1,1);
+                queue.put(1,2);
+                queue.put(1,3);
+                assertEquals(3,queue.depth(partition));
+                assertEquals(0,queue.depth(1-partition));
+            } finally {
+                latch.countDown();
+            }
+        }
+        assertEquals(3,processed.get());
+    }
+    @Test void ensureConsumerErrorDoesNotStopPartition() {
+        var processed = new ArrayList<Integer>();
+        var queue = new PartitionedClosableQueue<Integer,Integer>(1, e -> {
+            if(e==1) throw new AssertionError("expected");
+            processed.add(e);
+        });
+        try(queue) {
+            queue.put(1,1);
+            queue.put(1,2);
+            queue.put(1,3);
+        }
+        assertEquals(List.of(2,3),processed);
+        assertEquals(0,queue.depth(0));
+    }
+    @Test void ensureNullElementIsRejected() {
+        try(var queue = new PartitionedClosableQueue<Integer,Integer>(1, e -> {})) {
+            assertThrows(NullPointerException.class,() -> queue.put(1,null));
+            assertEquals(0,queue.depth(0));
+        }
+    }
+    @Test void ensureConsumerInterruptDoesNotLeakToPartition() throws InterruptedException {
+        var interrupted = new ArrayList<Boolean>();
+        try(var queue = new PartitionedClosableQueue<Integer,Integer>(1, e -> {
+            interrupted.add(Thread.currentThread().isInterrupted());
+            Thread.currentThread().interrupt();
+        })) {
+            queue.put(1,1);
+            queue.put(1,2);
+        }
+        assertEquals(List.of(false,false),interrupted);
+    }
+    @Test void ensureConsistentHashIsStableAndInRange() {
+        var queue = new PartitionedClosableQueue<Integer,Integer>(8, true, e -> {});
+        var larger = new PartitionedClosableQueue<Integer,Integer>(9, true, e -> {});
+        int moved=0;
+        for(int key=0;key<10000;key++) {
+            int p = queue.partitionOf(key);
+            assertTrue(p>=0 && p<8);
+            assertEquals(p,queue.partitionOf(key));
+            int p2 = larger.partitionOf(key);
+            if(p2!=p) {
+                // keys only move to the new partition
+                assertEquals(8,p2);
+                moved++;
+            }
+        }
+        assertTrue(moved>0 && moved<10000/4);
+        queue.close();
+        larger.close();
+    }
+}
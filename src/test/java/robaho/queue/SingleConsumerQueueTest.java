@@ -1,6 +1,12 @@
 package robaho.queue;
 
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
 import org.junit.platform.commons.annotation.Testable;
+import static org.junit.jupiter.api.Assertions.*;
 
 @Testable
 class SingleConsumerQueueTest extends AbstractClosableQueueTest{
@@ -8,4 +14,53 @@ class SingleConsumerQueueTest extends AbstractClosableQueueTest{
     protected AbstractClosableQueue<Integer> createQueue() {
         return new SingleConsumerQueue<>();
     }
+    @Test void ensureTransferWaitsForConsumer() throws InterruptedException {
+        var queue = new SingleConsumerQueue<Integer>();
+        var transferred = new AtomicBoolean();
+        Thread t = Thread.startVirtualThread(() -> {
+            try {
+                queue.transfer(1);
+                transferred.set(true);
+            } catch (InterruptedException ex) {
+            }
+        });
+        // give some time for vt to enter transfer()
+        Thread.sleep(Duration.ofMillis(100));
+        assertFalse(transferred.get());
+        assertEquals(1,queue.take());
+        assertTrue(t.join(Duration.ofSeconds(5)));
+        assertTrue(transferred.get());
+    }
+    @Test void ensureTryTransferTimesOut() throws InterruptedException {
+        var queue = new SingleConsumerQueue<Integer>();
+        assertFalse(queue.tryTransfer(1,10,TimeUnit.MILLISECONDS));
+        queue.put(2);
+        // the timed out element is never seen by the consumer
+        assertEquals(2,queue.poll());
+        assertNull(queue.poll());
+    }
+    @Test void ensureZeroTimeoutTryTransferFails() throws InterruptedException {
+        var queue = new SingleConsumerQueue<Integer>();
+        assertFalse(queue.tryTransfer(1,0,TimeUnit.NANOSECONDS));
+        assertNull(queue.poll());
+    }
+    @Test void ensureTransferThrowsOnClose() throws InterruptedException {
+        var queue = new SingleConsumerQueue<Integer>();
+        var closed = new AtomicBoolean();
+        Thread t = Thread.startVirtualThread(() -> {
+            try {
+                queue.transfer(1);
+            } catch (InterruptedException ex) {
+            } catch (QueueClosedException expected) {
+                closed.set(true);
+            }
+        });
+        // give some time for vt to enter transfer()
+        Thread.sleep(Duration.ofMillis(100));
+        queue.close();
+        assertTrue(t.join(Duration.ofSeconds(5)));
+        assertTrue(closed.get());
+        assertThrows(QueueClosedException.class,() -> queue.take());
+        assertThrows(QueueClosedException.class,() -> queue.transfer(2));
+    }
 }